@@ -0,0 +1,176 @@
+// JMH benchmarks for the Calculator class hierarchy in ../yuh.java
+//
+// Dependencies (Maven coordinates):
+//   org.openjdk.jmh:jmh-core
+//   org.openjdk.jmh:jmh-generator-annprocess   (annotation processor)
+//
+// Build and run from this directory:
+//   javac -cp "$JMH_CP" -d out ../yuh.java CalculatorBenchmark.java
+//   java -cp "out:$JMH_CP" CalculatorBenchmark
+//
+// main() adds the gc profiler, so every result is reported as ops/s together
+// with gc.alloc.rate and gc.alloc.rate.norm (bytes allocated per operation).
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CalculatorBenchmark {
+    // Number of call sites visited by the dispatch benchmarks per invocation
+    private static final int CALL_SITES = 64;
+
+    // Extra MathOperations implementations - only used to make the
+    // performOperation() call site bimorphic or megamorphic
+    static final class Subtraction implements MathOperations {
+        @Override
+        public double performOperation(double a, double b) {
+            return a - b;
+        }
+
+        @Override
+        public String getOperationName() {
+            return "Subtraction";
+        }
+    }
+
+    static final class Multiplication implements MathOperations {
+        @Override
+        public double performOperation(double a, double b) {
+            return a * b;
+        }
+
+        @Override
+        public String getOperationName() {
+            return "Multiplication";
+        }
+    }
+
+    // Non-final fields so the JIT cannot constant-fold the operands
+    private double a = 42.5;
+    private double b = 7.25;
+    private double zero = 0.0;
+
+    private Calculator calc;
+    private MathOperations operations;
+
+    // Call sites for the dispatch benchmark, kept in their own state so the
+    // @Param does not multiply the scalar benchmarks
+    @State(Scope.Thread)
+    public static class DispatchState {
+        // 1 = monomorphic, 2 = bimorphic, 4 = megamorphic call site
+        @Param({"1", "2", "4"})
+        int implementations;
+
+        MathOperations[] callSites;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            MathOperations[] kinds = {
+                new Calculator(),
+                new ConcurrentCalculator(),
+                new Subtraction(),
+                new Multiplication()
+            };
+            callSites = new MathOperations[CALL_SITES];
+            for (int i = 0; i < CALL_SITES; i++) {
+                callSites[i] = kinds[i % implementations];
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        calc = new Calculator();
+        operations = calc;
+    }
+
+    // Scalar operations - direct calls on Calculator
+    @Benchmark
+    public double add() {
+        return calc.add(a, b);
+    }
+
+    @Benchmark
+    public double subtract() {
+        return calc.subtract(a, b);
+    }
+
+    @Benchmark
+    public double multiply() {
+        return calc.multiply(a, b);
+    }
+
+    @Benchmark
+    public String divide() {
+        return calc.divide(a, b);
+    }
+
+    @Benchmark
+    public double divideValue() {
+        return calc.divideValue(a, b);
+    }
+
+    // Divide error path
+    @Benchmark
+    public String divideByZero() {
+        return calc.divide(a, zero);
+    }
+
+    @Benchmark
+    public double divideValueByZero() {
+        return calc.divideValue(a, zero);
+    }
+
+    // Interface dispatch against the direct call it wraps
+    @Benchmark
+    public double directAdd() {
+        return calc.add(a, b);
+    }
+
+    @Benchmark
+    public double interfaceAdd() {
+        return operations.performOperation(a, b);
+    }
+
+    // One call site that sees DispatchState.implementations receiver types
+    @Benchmark
+    @OperationsPerInvocation(CALL_SITES)
+    public double dispatch(DispatchState state) {
+        double sum = 0;
+        for (MathOperations op : state.callSites) {
+            sum += op.performOperation(a, b);
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CalculatorBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
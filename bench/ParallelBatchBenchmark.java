@@ -0,0 +1,80 @@
+// JMH benchmark for sequential vs fork-join Calculator batches.
+//
+// Build and run like CalculatorBenchmark:
+//   javac -cp "$JMH_CP" -d out ../yuh.java ParallelBatchBenchmark.java
+//   java -cp "out:$JMH_CP" ParallelBatchBenchmark
+//
+// Results are average time per batch for each size. The crossover is the
+// smallest size where parallel() beats sequential(); it depends on core count
+// and memory bandwidth, so rerun it on the target machine before changing
+// Calculator.DEFAULT_GRANULARITY or the size at which callers go parallel.
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ParallelBatchBenchmark {
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    private int size;
+
+    @Param({"65536"})
+    private int granularity;
+
+    private double[] a;
+    private double[] b;
+    private double[] out;
+    private Calculator calc;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        a = new double[size];
+        b = new double[size];
+        out = new double[size];
+        for (int i = 0; i < size; i++) {
+            a[i] = i * 0.5;
+            b[i] = i % 97 + 1;
+        }
+        calc = new Calculator();
+    }
+
+    @Benchmark
+    public double[] sequential() {
+        calc.applyAll(Operation.MULTIPLY, a, b, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] parallel() {
+        calc.applyAllParallel(Operation.MULTIPLY, a, b, out, ForkJoinPool.commonPool(), granularity);
+        return out;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ParallelBatchBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,70 @@
+// Checks for RunningProduct in ../yuh.java - factors whose raw product would
+// overflow, underflow or go subnormal part-way through the run.
+//
+// Build and run from this directory (no dependencies):
+//   javac -d out ../yuh.java RunningProductTest.java
+//   java -cp out RunningProductTest
+//
+// Prints each failure and exits with status 1 if there was one.
+
+public class RunningProductTest {
+    private static int failures;
+
+    public static void main(String[] args) {
+        // 1.9 * 1.5*2^1023 overflows if multiplied before 2^-1000 arrives
+        check("overflow mid-run", 1.9 * 0x1.8p23, product(1.9, 0x1.8p1023, 0x1p-1000));
+        // 1.7 * 2^-1074 is subnormal and keeps only one bit of 1.7
+        check("subnormal mid-run", 1.7, product(1.7, Double.MIN_VALUE, 0x1p1000, 0x1p74));
+        check("underflow mid-run", 3.0, product(-3.0, 0x1p-1023, -0x1p1023));
+        check("subnormal factor", 3 * 0x1p-1060, product(0x1p-1060, 3.0));
+        check("subnormal result", Double.MIN_VALUE, product(Double.MIN_VALUE));
+        check("result overflows", Double.POSITIVE_INFINITY, product(0x1p1000, 0x1p1000));
+        check("result underflows", 0.0, product(0x1p-1000, 0x1p-1000));
+        check("zero absorbs", 0.0, product(0x1p1023, 0.0, 0x1p1023));
+        check("NaN absorbs", Double.NaN, product(0x1p1023, Double.NaN, 0x1p-1023));
+
+        // 2000 factors of 1e300, then 2000 of 1e-300: only the exponent grows
+        double[] run = new double[4000];
+        for (int i = 0; i < run.length; i++) {
+            run[i] = i < 2000 ? 1e300 : 1e-300;
+        }
+        checkClose("long run", 1.0, product(run), 1e-9);
+
+        // Merging partial products gives the single-pass answer
+        RunningProduct left = new RunningProduct();
+        RunningProduct right = new RunningProduct();
+        left.acceptAll(new double[] {1.9, Double.MIN_VALUE, 0x1.8p1023});
+        right.acceptAll(new double[] {0x1p-1000, 0x1p1000, 0x1p74});
+        left.combine(right);
+        check("combine", 1.9 * 0x1.8p23, left.getProduct());
+        if (left.getCount() != 6) {
+            fail("combine count", 6, left.getCount());
+        }
+
+        if (failures > 0) {
+            System.exit(1);
+        }
+        System.out.println("RunningProductTest: all checks passed");
+    }
+
+    private static double product(double... values) {
+        return DoubleReducer.reduce(values, RunningProduct::new).getProduct();
+    }
+
+    private static void check(String name, double expected, double actual) {
+        if (Double.compare(expected, actual) != 0) {
+            fail(name, expected, actual);
+        }
+    }
+
+    private static void checkClose(String name, double expected, double actual, double relative) {
+        if (!(Math.abs(actual - expected) <= relative * Math.abs(expected))) {
+            fail(name, expected, actual);
+        }
+    }
+
+    private static void fail(String name, Object expected, Object actual) {
+        failures++;
+        System.out.println("FAIL " + name + ": expected " + expected + ", got " + actual);
+    }
+}
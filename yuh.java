@@ -1,89 +1,1648 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.DoubleStream;
+
 // 1. Interface - Top level contract
 interface MathOperations {
     double performOperation(double a, double b);  // Abstract by default
     String getOperationName();                    // Must be implemented
 }
 
-// 2. Abstract Class - Partial implementation
-abstract class AbstractCalculator {
-    // Protected member - accessible to subclasses
-    protected String calculatorType;
-    
-    // Constructor
-    public AbstractCalculator(String type) {
-        this.calculatorType = type;
+// 2. Abstract Class - Partial implementation
+abstract class AbstractCalculator {
+    // Protected member - accessible to subclasses
+    protected String calculatorType;
+    
+    // Constructor
+    public AbstractCalculator(String type) {
+        this.calculatorType = type;
+    }
+    
+    // Abstract method - must be implemented by subclasses
+    abstract double getResult();
+}
+
+// 3. Concrete Class - Full implementation
+class Calculator extends AbstractCalculator implements MathOperations {
+    // Private fields - encapsulation
+    private double result;
+    private long operationsPerformed;
+    private String operationName;
+
+    // Status codes reported by divideValue() through getLastStatus()
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_DIVIDE_BY_ZERO = 1;
+
+    private int lastStatus = STATUS_OK;
+    private double zeroDivisorResult = Double.NaN;
+    private final ExpressionCache expressionCache;
+
+    // Constructor chain using this() and super()
+    public Calculator() {
+        this(ExpressionCache.shared());
+    }
+
+    public Calculator(ExpressionCache expressionCache) {
+        super("Basic Calculator");  // Call parent constructor
+        this.result = 0;
+        this.operationsPerformed = 0;
+        this.expressionCache = expressionCache;
+    }
+
+    // Implementation of abstract method from parent class
+    @Override
+    double getResult() {
+        return this.result;
+    }
+
+    // Implementation of interface methods
+    @Override
+    public double performOperation(double a, double b) {
+        return add(a, b);
+    }
+
+    @Override
+    public String getOperationName() {
+        return this.operationName;
+    }
+
+    // Getter method - part of encapsulation to safely access private members
+    public long getOperationsPerformed() {
+        return operationsPerformed;
+    }
+
+    public int getLastStatus() {
+        return lastStatus;
+    }
+
+    // Value returned by divideValue() for a zero divisor: NaN by default,
+    // or any sentinel the caller can test for without checking the status
+    public void setZeroDivisorResult(double sentinel) {
+        this.zeroDivisorResult = sentinel;
+    }
+
+    // Instance methods - define the behavior of Calculator objects
+    public double add(double a, double b) {
+        result = a + b;
+        operationsPerformed++;
+        operationName = "Addition";
+        return result;
+    }
+
+    public double subtract(double a, double b) {
+        result = a - b;
+        operationsPerformed++;
+        operationName = "Subtraction";
+        return result;
+    }
+
+    public double multiply(double a, double b) {
+        result = a * b;
+        operationsPerformed++;
+        operationName = "Multiplication";
+        return result;
+    }
+
+    public String divide(double a, double b) {
+        double quotient = divideValue(a, b);
+        if (lastStatus == STATUS_DIVIDE_BY_ZERO) {
+            return "Error: Cannot divide by zero";
+        }
+        return String.valueOf(quotient);
+    }
+
+    // Primitive division - allocates nothing, even for a zero divisor.
+    // A zero divisor returns the configured sentinel and sets the status.
+    public double divideValue(double a, double b) {
+        operationsPerformed++;
+        operationName = "Division";
+        if (b == 0) {
+            lastStatus = STATUS_DIVIDE_BY_ZERO;
+            return zeroDivisorResult;
+        }
+        lastStatus = STATUS_OK;
+        result = a / b;
+        return result;
+    }
+
+    // Expressions - compiled once through the cache, then only evaluated
+    public Expression compile(String expression) {
+        return expressionCache.get(expression);
+    }
+
+    public double evaluate(String expression, double... bindings) {
+        return evaluate(compile(expression), bindings);
+    }
+
+    public double evaluate(Expression expression, double... bindings) {
+        result = expression.evaluate(bindings);
+        operationsPerformed++;
+        operationName = "Expression";
+        return result;
+    }
+
+    public ExpressionCache getExpressionCache() {
+        return expressionCache;
+    }
+
+    // Batch methods - apply one operation to whole arrays of operand pairs.
+    // The loops are plain counted loops over primitive arrays, which the JIT
+    // compiles to SIMD instructions, and the counters are updated once per
+    // batch instead of once per element.
+    public void addAll(double[] a, double[] b, double[] out) {
+        applyAll(Operation.ADD, a, b, out);
+    }
+
+    public void subtractAll(double[] a, double[] b, double[] out) {
+        applyAll(Operation.SUBTRACT, a, b, out);
+    }
+
+    public void multiplyAll(double[] a, double[] b, double[] out) {
+        applyAll(Operation.MULTIPLY, a, b, out);
+    }
+
+    // Zero divisors follow IEEE 754 here (Infinity or NaN) - there is no
+    // per-element error String in batch mode
+    public void divideAll(double[] a, double[] b, double[] out) {
+        applyAll(Operation.DIVIDE, a, b, out);
+    }
+
+    public void applyAll(Operation op, double[] a, double[] b, double[] out) {
+        int n = checkBatch(a, b, out);
+        applyRange(op, a, b, out, 0, n);
+        recordBatch(out, n, op.getOperationName());
+    }
+
+    // Parallel batch - splits the arrays into ranges of at most `granularity`
+    // pairs and runs them as fork-join tasks. For small batches the
+    // sequential methods are faster; the crossover depends on core count and
+    // memory bandwidth, so measure it with bench/ParallelBatchBenchmark on the
+    // target machine. The counters are updated once, after all ranges have
+    // finished.
+    public static final int DEFAULT_GRANULARITY = 1 << 16;
+
+    public void applyAllParallel(Operation op, double[] a, double[] b, double[] out) {
+        applyAllParallel(op, a, b, out, ForkJoinPool.commonPool(), DEFAULT_GRANULARITY);
+    }
+
+    public void applyAllParallel(Operation op, double[] a, double[] b, double[] out,
+                                 ForkJoinPool pool, int granularity) {
+        if (granularity <= 0) {
+            throw new IllegalArgumentException("Granularity must be positive: " + granularity);
+        }
+        int n = checkBatch(a, b, out);
+        pool.invoke(new BatchTask(op, a, b, out, 0, n, granularity));
+        recordBatch(out, n, op.getOperationName());
+    }
+
+    private static final class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Operation op;
+        private final double[] a;
+        private final double[] b;
+        private final double[] out;
+        private final int from;
+        private final int to;
+        private final int granularity;
+
+        BatchTask(Operation op, double[] a, double[] b, double[] out, int from, int to, int granularity) {
+            this.op = op;
+            this.a = a;
+            this.b = b;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+            this.granularity = granularity;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= granularity) {
+                applyRange(op, a, b, out, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BatchTask(op, a, b, out, from, middle, granularity),
+                      new BatchTask(op, a, b, out, middle, to, granularity));
+        }
+    }
+
+    // One loop per operation, so the operation is chosen once per range
+    private static void applyRange(Operation op, double[] a, double[] b, double[] out, int from, int to) {
+        switch (op) {
+            case ADD:
+                for (int i = from; i < to; i++) {
+                    out[i] = a[i] + b[i];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = from; i < to; i++) {
+                    out[i] = a[i] - b[i];
+                }
+                break;
+            case MULTIPLY:
+                for (int i = from; i < to; i++) {
+                    out[i] = a[i] * b[i];
+                }
+                break;
+            default:
+                for (int i = from; i < to; i++) {
+                    out[i] = a[i] / b[i];
+                }
+                break;
+        }
+    }
+
+    private static int checkBatch(double[] a, double[] b, double[] out) {
+        if (a.length != b.length || out.length < a.length) {
+            throw new IllegalArgumentException("Batch size mismatch: a=" + a.length
+                    + ", b=" + b.length + ", out=" + out.length);
+        }
+        return a.length;
+    }
+
+    private void recordBatch(double[] out, int n, String name) {
+        if (n > 0) {
+            recordBatch(n, out[n - 1], name);
+        }
+    }
+
+    // Used by processors that compute outside the Calculator (mapped files)
+    // to account for a whole batch at once
+    void recordBatch(long count, double last, String name) {
+        result = last;
+        operationsPerformed += count;
+        operationName = name;
+    }
+}
+
+// 4. Thread-safe Calculator - one instance can be shared between threads
+class ConcurrentCalculator extends AbstractCalculator implements MathOperations {
+    // Last result and operation of one thread - never shared, so no locking
+    private static final class ResultSlot {
+        double result;
+        String operationName;
+    }
+
+    // LongAdder stripes the count over several cells, so concurrent
+    // increments do not fight over a single cache line
+    private final LongAdder operationsPerformed = new LongAdder();
+    private final ThreadLocal<ResultSlot> slots = ThreadLocal.withInitial(ResultSlot::new);
+    private final double zeroDivisorResult;
+
+    public ConcurrentCalculator() {
+        this(Double.NaN);
+    }
+
+    public ConcurrentCalculator(double zeroDivisorResult) {
+        super("Concurrent Calculator");
+        this.zeroDivisorResult = zeroDivisorResult;
+    }
+
+    // Result of the last operation performed by the calling thread
+    @Override
+    double getResult() {
+        return slots.get().result;
+    }
+
+    @Override
+    public double performOperation(double a, double b) {
+        return add(a, b);
+    }
+
+    @Override
+    public String getOperationName() {
+        return slots.get().operationName;
+    }
+
+    // Sum over all threads - exact once the callers have finished
+    public long getOperationsPerformed() {
+        return operationsPerformed.sum();
+    }
+
+    public double add(double a, double b) {
+        return record(a + b, "Addition");
+    }
+
+    public double subtract(double a, double b) {
+        return record(a - b, "Subtraction");
+    }
+
+    public double multiply(double a, double b) {
+        return record(a * b, "Multiplication");
+    }
+
+    // Same contract as Calculator.divideValue(): a zero divisor returns the
+    // sentinel and leaves the thread's last result unchanged
+    public double divideValue(double a, double b) {
+        if (b == 0) {
+            slots.get().operationName = "Division";
+            operationsPerformed.increment();
+            return zeroDivisorResult;
+        }
+        return record(a / b, "Division");
+    }
+
+    private double record(double value, String name) {
+        ResultSlot slot = slots.get();
+        slot.result = value;
+        slot.operationName = name;
+        operationsPerformed.increment();
+        return value;
+    }
+}
+
+// 5. Expression engine - parse a formula once, evaluate it many times
+//
+// Grammar (lowest to highest precedence):
+//   expression := term (('+' | '-') term)*
+//   term       := unary (('*' | '/' | '%') unary)*
+//   unary      := ('+' | '-') unary | power
+//   power      := primary ('^' unary)?          right-associative
+//   primary    := number | name | name '(' arguments ')' | '(' expression ')'
+//
+// The parser builds the evaluation tree directly: variable names are resolved
+// to slots in a double[] and constant sub-expressions are folded, so
+// evaluate() is only a walk over small final node objects. Division follows
+// IEEE 754, like Calculator's batch methods.
+final class Expression {
+    private final String source;
+    private final String[] variables;
+    private final Node root;
+
+    private Expression(String source, String[] variables, Node root) {
+        this.source = source;
+        this.variables = variables;
+        this.root = root;
+    }
+
+    public static Expression compile(String source) {
+        Parser parser = new Parser(source);
+        Node root = parser.parseExpression();
+        parser.expectEnd();
+        return new Expression(source, parser.variables.toArray(new String[0]), root);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    // Variable names in slot order (order of first appearance)
+    public String[] getVariables() {
+        return variables.clone();
+    }
+
+    public int getVariableCount() {
+        return variables.length;
+    }
+
+    // Slot of a variable in the bindings array, or -1 if it is not used
+    public int slotOf(String name) {
+        for (int i = 0; i < variables.length; i++) {
+            if (variables[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Bindings are indexed by slot - see slotOf() and getVariables()
+    public double evaluate(double... bindings) {
+        if (bindings.length < variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length
+                    + " variable values, got " + bindings.length);
+        }
+        return root.eval(bindings);
+    }
+
+    // Rough heap footprint: header and fields, the source text, the variable
+    // names and about 32 bytes per tree node
+    public long estimatedBytes() {
+        long bytes = 64 + 2L * source.length() + 32L * root.size();
+        for (String name : variables) {
+            bytes += 48 + 2L * name.length();
+        }
+        return bytes;
+    }
+
+    // Canonical form used as a cache key: a run of whitespace is dropped
+    // unless it could end a token - between two names or numbers ("a b" must
+    // stay an error) or next to a digit, '.', 'e' or 'E' ("1e -2" and
+    // "1e+ 2" are not numbers, so they must not share a key with "1e-2")
+    public static String normalize(String source) {
+        StringBuilder key = new StringBuilder(source.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = key.length() > 0;
+                continue;
+            }
+            if (pendingSpace && keepsSpace(key.charAt(key.length() - 1), c)) {
+                key.append(' ');
+            }
+            pendingSpace = false;
+            key.append(c);
+        }
+        return key.toString();
+    }
+
+    private static boolean keepsSpace(char before, char after) {
+        return (isWordChar(before) && isWordChar(after)) || isNumberChar(before) || isNumberChar(after);
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+
+    private static boolean isNumberChar(char c) {
+        return Character.isDigit(c) || c == '.' || c == 'e' || c == 'E';
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    // Compiled tree nodes. Operators are node classes of their own rather
+    // than one node delegating to a MathOperations: a delegating node would
+    // make two virtual calls per operator (eval, then performOperation) where
+    // these make one, and MathOperations has no shape for the unary minus,
+    // constants, variables or the Math functions.
+    private abstract static class Node {
+        abstract double eval(double[] vars);
+
+        boolean isConstant() {
+            return false;
+        }
+
+        // Number of nodes in this sub-tree
+        int size() {
+            return 1;
+        }
+    }
+
+    private static final class Constant extends Node {
+        private final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return value;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+    }
+
+    private static final class Variable extends Node {
+        private final int slot;
+
+        Variable(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return vars[slot];
+        }
+    }
+
+    private abstract static class Binary extends Node {
+        final Node left;
+        final Node right;
+
+        Binary(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean isConstant() {
+            return left.isConstant() && right.isConstant();
+        }
+
+        @Override
+        int size() {
+            return 1 + left.size() + right.size();
+        }
+    }
+
+    private static final class Add extends Binary {
+        Add(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return left.eval(vars) + right.eval(vars);
+        }
+    }
+
+    private static final class Subtract extends Binary {
+        Subtract(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return left.eval(vars) - right.eval(vars);
+        }
+    }
+
+    private static final class Multiply extends Binary {
+        Multiply(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return left.eval(vars) * right.eval(vars);
+        }
+    }
+
+    private static final class Divide extends Binary {
+        Divide(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return left.eval(vars) / right.eval(vars);
+        }
+    }
+
+    private static final class Remainder extends Binary {
+        Remainder(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return left.eval(vars) % right.eval(vars);
+        }
+    }
+
+    private static final class Power extends Binary {
+        Power(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return Math.pow(left.eval(vars), right.eval(vars));
+        }
+    }
+
+    private static final class Negate extends Node {
+        private final Node operand;
+
+        Negate(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return -operand.eval(vars);
+        }
+
+        @Override
+        boolean isConstant() {
+            return operand.isConstant();
+        }
+
+        @Override
+        int size() {
+            return 1 + operand.size();
+        }
+    }
+
+    private static final class Function1 extends Node {
+        private final DoubleUnaryOperator function;
+        private final Node argument;
+
+        Function1(DoubleUnaryOperator function, Node argument) {
+            this.function = function;
+            this.argument = argument;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return function.applyAsDouble(argument.eval(vars));
+        }
+
+        @Override
+        boolean isConstant() {
+            return argument.isConstant();
+        }
+
+        @Override
+        int size() {
+            return 1 + argument.size();
+        }
+    }
+
+    private static final class Function2 extends Binary {
+        private final DoubleBinaryOperator function;
+
+        Function2(DoubleBinaryOperator function, Node left, Node right) {
+            super(left, right);
+            this.function = function;
+        }
+
+        @Override
+        double eval(double[] vars) {
+            return function.applyAsDouble(left.eval(vars), right.eval(vars));
+        }
+    }
+
+    // Recursive-descent parser over the source characters
+    private static final class Parser {
+        private static final double[] NO_VARIABLES = new double[0];
+
+        private final String source;
+        private final List<String> variables = new ArrayList<>();
+        private int pos;
+
+        Parser(String source) {
+            this.source = source;
+        }
+
+        Node parseExpression() {
+            Node node = parseTerm();
+            while (true) {
+                if (accept('+')) {
+                    node = fold(new Add(node, parseTerm()));
+                } else if (accept('-')) {
+                    node = fold(new Subtract(node, parseTerm()));
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node parseTerm() {
+            Node node = parseUnary();
+            while (true) {
+                if (accept('*')) {
+                    node = fold(new Multiply(node, parseUnary()));
+                } else if (accept('/')) {
+                    node = fold(new Divide(node, parseUnary()));
+                } else if (accept('%')) {
+                    node = fold(new Remainder(node, parseUnary()));
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node parseUnary() {
+            if (accept('-')) {
+                return fold(new Negate(parseUnary()));
+            }
+            if (accept('+')) {
+                return parseUnary();
+            }
+            Node base = parsePrimary();
+            if (accept('^')) {
+                return fold(new Power(base, parseUnary()));
+            }
+            return base;
+        }
+
+        private Node parsePrimary() {
+            skipWhitespace();
+            if (accept('(')) {
+                Node node = parseExpression();
+                expect(')');
+                return node;
+            }
+            if (pos < source.length()) {
+                char c = source.charAt(pos);
+                if (Character.isDigit(c) || c == '.') {
+                    return parseNumber();
+                }
+                if (Character.isLetter(c) || c == '_') {
+                    return parseName();
+                }
+            }
+            throw error("Expected a number, name or '('");
+        }
+
+        private Node parseNumber() {
+            int start = pos;
+            while (pos < source.length()
+                    && (Character.isDigit(source.charAt(pos)) || source.charAt(pos) == '.')) {
+                pos++;
+            }
+            if (pos < source.length() && (source.charAt(pos) == 'e' || source.charAt(pos) == 'E')) {
+                pos++;
+                if (pos < source.length() && (source.charAt(pos) == '+' || source.charAt(pos) == '-')) {
+                    pos++;
+                }
+                while (pos < source.length() && Character.isDigit(source.charAt(pos))) {
+                    pos++;
+                }
+            }
+            try {
+                return new Constant(Double.parseDouble(source.substring(start, pos)));
+            } catch (NumberFormatException e) {
+                pos = start;
+                throw error("Invalid number");
+            }
+        }
+
+        private Node parseName() {
+            int start = pos;
+            while (pos < source.length()
+                    && (Character.isLetterOrDigit(source.charAt(pos)) || source.charAt(pos) == '_')) {
+                pos++;
+            }
+            String name = source.substring(start, pos);
+            if (accept('(')) {
+                return parseCall(name, start);
+            }
+            switch (name) {
+                case "pi":
+                    return new Constant(Math.PI);
+                case "e":
+                    return new Constant(Math.E);
+                default:
+                    int slot = variables.indexOf(name);
+                    if (slot < 0) {
+                        slot = variables.size();
+                        variables.add(name);
+                    }
+                    return new Variable(slot);
+            }
+        }
+
+        private Node parseCall(String name, int start) {
+            List<Node> args = new ArrayList<>();
+            if (!accept(')')) {
+                do {
+                    args.add(parseExpression());
+                } while (accept(','));
+                expect(')');
+            }
+            DoubleUnaryOperator unary = unaryFunction(name);
+            if (unary != null && args.size() == 1) {
+                return fold(new Function1(unary, args.get(0)));
+            }
+            DoubleBinaryOperator binary = binaryFunction(name);
+            if (binary != null && args.size() == 2) {
+                return fold(new Function2(binary, args.get(0), args.get(1)));
+            }
+            pos = start;
+            if (unary == null && binary == null) {
+                throw error("Unknown function '" + name + "'");
+            }
+            throw error("Wrong number of arguments for '" + name + "'");
+        }
+
+        private static DoubleUnaryOperator unaryFunction(String name) {
+            switch (name) {
+                case "abs": return Math::abs;
+                case "sqrt": return Math::sqrt;
+                case "cbrt": return Math::cbrt;
+                case "exp": return Math::exp;
+                case "log": return Math::log;
+                case "log10": return Math::log10;
+                case "sin": return Math::sin;
+                case "cos": return Math::cos;
+                case "tan": return Math::tan;
+                case "asin": return Math::asin;
+                case "acos": return Math::acos;
+                case "atan": return Math::atan;
+                case "floor": return Math::floor;
+                case "ceil": return Math::ceil;
+                case "round": return Math::round;
+                default: return null;
+            }
+        }
+
+        private static DoubleBinaryOperator binaryFunction(String name) {
+            switch (name) {
+                case "min": return Math::min;
+                case "max": return Math::max;
+                case "pow": return Math::pow;
+                case "atan2": return Math::atan2;
+                case "hypot": return Math::hypot;
+                default: return null;
+            }
+        }
+
+        // Constant folding - a sub-tree without variables becomes one Constant
+        private static Node fold(Node node) {
+            return node.isConstant() ? new Constant(node.eval(NO_VARIABLES)) : node;
+        }
+
+        void expectEnd() {
+            skipWhitespace();
+            if (pos < source.length()) {
+                throw error("Unexpected '" + source.charAt(pos) + "'");
+            }
+        }
+
+        private void expect(char c) {
+            if (!accept(c)) {
+                throw error("Expected '" + c + "'");
+            }
+        }
+
+        private boolean accept(char c) {
+            skipWhitespace();
+            if (pos < source.length() && source.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespace() {
+            while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos + " in: " + source);
+        }
+    }
+}
+
+// 6. Compiled-expression cache - repeated formulas skip parsing entirely
+//
+// Keyed by Expression.normalize(text) and bounded both by entry count and by
+// the estimated size of the compiled trees. Eviction is least-recently-used
+// (LinkedHashMap in access order). Compilation runs outside the lock, so a
+// slow formula does not stall lookups from other threads. Texts that share a
+// key differ only in insignificant whitespace; a hit returns the Expression
+// compiled from the first of them, with that text as its source.
+final class ExpressionCache {
+    private static final ExpressionCache SHARED = new ExpressionCache(4096, 16L << 20);
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Expression> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ExpressionCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache bounds must be positive: entries="
+                    + maxEntries + ", bytes=" + maxBytes);
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    // Process-wide cache used by Calculator's default constructor
+    public static ExpressionCache shared() {
+        return SHARED;
+    }
+
+    public Expression get(String source) {
+        String key = Expression.normalize(source);
+        synchronized (this) {
+            Expression cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        // Compiled from the caller's text, so error positions and
+        // getSource() refer to what was typed, not to the key
+        Expression compiled = Expression.compile(source);
+        synchronized (this) {
+            Expression raced = entries.get(key);
+            if (raced != null) {
+                return raced;
+            }
+            entries.put(key, compiled);
+            bytes += compiled.estimatedBytes();
+            evictOverflow();
+        }
+        return compiled;
+    }
+
+    // Drops least-recently-used entries until both bounds hold again
+    private void evictOverflow() {
+        Iterator<Expression> eldest = entries.values().iterator();
+        while (entries.size() > 1 && (entries.size() > maxEntries || bytes > maxBytes)) {
+            bytes -= eldest.next().estimatedBytes();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getEstimatedBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ExpressionCache[entries=" + entries.size() + ", bytes=" + bytes
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+}
+
+// 7. Operations as values - used wherever an operation is chosen at runtime
+enum Operation implements MathOperations {
+    ADD("Addition", "add", "+") {
+        @Override
+        public double performOperation(double a, double b) {
+            return a + b;
+        }
+    },
+    SUBTRACT("Subtraction", "subtract", "-") {
+        @Override
+        public double performOperation(double a, double b) {
+            return a - b;
+        }
+    },
+    MULTIPLY("Multiplication", "multiply", "*") {
+        @Override
+        public double performOperation(double a, double b) {
+            return a * b;
+        }
+    },
+    DIVIDE("Division", "divide", "/") {
+        @Override
+        public double performOperation(double a, double b) {
+            return a / b;
+        }
+    };
+
+    private static final Operation[] VALUES = values();
+
+    private final String operationName;
+    private final byte[] word;
+    private final byte symbol;
+
+    Operation(String operationName, String word, String symbol) {
+        this.operationName = operationName;
+        this.word = word.getBytes(StandardCharsets.US_ASCII);
+        this.symbol = (byte) symbol.charAt(0);
+    }
+
+    @Override
+    public String getOperationName() {
+        return operationName;
+    }
+
+    // Applies the operation through the matching Calculator method
+    public double apply(Calculator calc, double a, double b) {
+        switch (this) {
+            case ADD:
+                return calc.add(a, b);
+            case SUBTRACT:
+                return calc.subtract(a, b);
+            case MULTIPLY:
+                return calc.multiply(a, b);
+            default:
+                return calc.divideValue(a, b);
+        }
+    }
+
+    public static Operation parse(String token) {
+        byte[] bytes = token.trim().toLowerCase().getBytes(StandardCharsets.US_ASCII);
+        Operation op = parse(bytes, 0, bytes.length);
+        if (op == null) {
+            throw new IllegalArgumentException("Unknown operation: " + token);
+        }
+        return op;
+    }
+
+    // Accepts the word ("add"), its symbol ("+") or its menu number ("1")
+    // without creating a String; returns null for anything else
+    static Operation parse(byte[] buf, int from, int to) {
+        int length = to - from;
+        if (length == 1) {
+            byte c = buf[from];
+            for (Operation op : VALUES) {
+                if (c == op.symbol || c == '1' + op.ordinal()) {
+                    return op;
+                }
+            }
+            return null;
+        }
+        for (Operation op : VALUES) {
+            if (length == op.word.length && Arrays.equals(buf, from, to, op.word, 0, length)) {
+                return op;
+            }
+        }
+        return null;
     }
-    
-    // Abstract method - must be implemented by subclasses
-    abstract double getResult();
 }
 
-// 3. Concrete Class - Full implementation
-class Calculator extends AbstractCalculator implements MathOperations {
-    // Private fields - encapsulation
-    private double result;
-    private int operationsPerformed;
-    private String operationName;
+// 8. Batch mode - streams "op,a,b" lines from a file or stdin
+//
+// Input is read in large blocks through a channel and parsed straight from
+// the bytes; the common decimal forms never become a String. Each result is
+// formatted into one reused StringBuilder and copied into a single buffered
+// writer, so steady-state processing does not allocate per line.
+final class BatchProcessor {
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
 
-    // Constructor chain using super()
-    public Calculator() {
-        super("Basic Calculator");  // Call parent constructor
-        this.result = 0;
-        this.operationsPerformed = 0;
+    // Exact powers of ten - a decimal with at most 15 digits scaled by one
+    // of these rounds exactly like Double.parseDouble
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final Calculator calc;
+    private final StringBuilder line = new StringBuilder(64);
+    private char[] chars = new char[64];
+    private long lineNumber;
+
+    public BatchProcessor(Calculator calc) {
+        this.calc = calc;
     }
 
-    // Implementation of abstract method from parent class
+    public static Writer newWriter(OutputStream out) {
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII), WRITE_BUFFER_SIZE);
+    }
+
+    // Processes every line of the input and returns the number of lines
+    // that produced a result (errors are written to the output as well)
+    public long process(ReadableByteChannel in, Writer out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        long results = 0;
+        boolean eof = false;
+        while (!eof) {
+            eof = in.read(buffer) < 0;
+            byte[] buf = buffer.array();
+            int limit = buffer.position();
+            int start = 0;
+            for (int i = 0; i < limit; i++) {
+                if (buf[i] == '\n') {
+                    results += processLine(buf, start, i, out);
+                    start = i + 1;
+                }
+            }
+            if (eof && start < limit) {
+                results += processLine(buf, start, limit, out);
+                start = limit;
+            }
+            // Keep the partial last line; grow the buffer if it fills it
+            buffer.position(start);
+            buffer.limit(limit);
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+        out.flush();
+        return results;
+    }
+
+    private int processLine(byte[] buf, int from, int to, Writer out) throws IOException {
+        lineNumber++;
+        if (to > from && buf[to - 1] == '\r') {
+            to--;
+        }
+        from = skipSpaces(buf, from, to);
+        if (from == to || buf[from] == '#') {
+            return 0;
+        }
+        int firstComma = indexOf(buf, from, to, (byte) ',');
+        int secondComma = firstComma < 0 ? -1 : indexOf(buf, firstComma + 1, to, (byte) ',');
+        if (secondComma < 0) {
+            return error(out, "expected op,a,b");
+        }
+        Operation op = Operation.parse(buf, from, trimEnd(buf, from, firstComma));
+        if (op == null) {
+            return error(out, "unknown operation");
+        }
+        double a;
+        double b;
+        try {
+            a = parseDouble(buf, firstComma + 1, secondComma);
+            b = parseDouble(buf, secondComma + 1, to);
+        } catch (NumberFormatException e) {
+            return error(out, "invalid number");
+        }
+        double value = op.apply(calc, a, b);
+        if (op == Operation.DIVIDE && calc.getLastStatus() == Calculator.STATUS_DIVIDE_BY_ZERO) {
+            out.write("Error: Cannot divide by zero\n");
+            return 1;
+        }
+        line.setLength(0);
+        line.append(value).append('\n');
+        write(out);
+        return 1;
+    }
+
+    private int error(Writer out, String message) throws IOException {
+        line.setLength(0);
+        line.append("Error: line ").append(lineNumber).append(": ").append(message).append('\n');
+        write(out);
+        return 0;
+    }
+
+    // Writer.append(CharSequence) would copy the builder into a new String
+    private void write(Writer out) throws IOException {
+        int length = line.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        line.getChars(0, length, chars, 0);
+        out.write(chars, 0, length);
+    }
+
+    // Decimal parser over raw bytes. Plain decimals with up to 15 significant
+    // digits and a small exponent are converted exactly without allocating;
+    // anything else (NaN, hex, long mantissas) falls back to Double.parseDouble.
+    static double parseDouble(byte[] buf, int from, int to) {
+        from = skipSpaces(buf, from, to);
+        to = trimEnd(buf, from, to);
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buf[i] == '-' || buf[i] == '+')) {
+            negative = buf[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < to; i++) {
+            byte c = buf[i];
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa == 0 && c == '0') {
+                    if (seenPoint) {
+                        scale--;
+                    }
+                    continue;
+                }
+                if (++digits > 15) {
+                    return parseSlow(buf, from, to);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (seenPoint) {
+                    scale--;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        if (!seenDigit) {
+            return parseSlow(buf, from, to);
+        }
+        if (i < to && (buf[i] == 'e' || buf[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (buf[i] == '-' || buf[i] == '+')) {
+                negativeExponent = buf[i] == '-';
+                i++;
+            }
+            int exponent = 0;
+            int exponentStart = i;
+            for (; i < to && buf[i] >= '0' && buf[i] <= '9' && exponent < 10000; i++) {
+                exponent = exponent * 10 + (buf[i] - '0');
+            }
+            if (i == exponentStart) {
+                return parseSlow(buf, from, to);
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (i != to) {
+            return parseSlow(buf, from, to);
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (scale >= 0 && scale < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[scale];
+        } else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[-scale];
+        } else {
+            return parseSlow(buf, from, to);
+        }
+        return negative ? -value : value;
+    }
+
+    private static double parseSlow(byte[] buf, int from, int to) {
+        return Double.parseDouble(new String(buf, from, to - from, StandardCharsets.US_ASCII));
+    }
+
+    private static int indexOf(byte[] buf, int from, int to, byte c) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipSpaces(byte[] buf, int from, int to) {
+        while (from < to && (buf[from] == ' ' || buf[from] == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(byte[] buf, int from, int to) {
+        while (to > from && (buf[to - 1] == ' ' || buf[to - 1] == '\t')) {
+            to--;
+        }
+        return to;
+    }
+}
+
+// 9. Memory-mapped mode - packed little-endian (a, b) pairs in, doubles out
+//
+// Input and output files are mapped window by window, so a file of any size
+// is processed with at most one 1 GiB input window and one 512 MiB output
+// window mapped at a time. Values are read and written in place through
+// DoubleBuffer views: no copies into arrays and no objects per record.
+final class MappedOperandProcessor {
+    private static final int PAIR_BYTES = 2 * Double.BYTES;
+    private static final int MAX_CHUNK_PAIRS = Integer.MAX_VALUE / PAIR_BYTES;
+    private static final int DEFAULT_CHUNK_PAIRS = 1 << 26;
+
+    private final Calculator calc;
+    private final int chunkPairs;
+
+    public MappedOperandProcessor(Calculator calc) {
+        this(calc, DEFAULT_CHUNK_PAIRS);
+    }
+
+    public MappedOperandProcessor(Calculator calc, int chunkPairs) {
+        if (chunkPairs <= 0 || chunkPairs > MAX_CHUNK_PAIRS) {
+            throw new IllegalArgumentException("Chunk size must be between 1 and "
+                    + MAX_CHUNK_PAIRS + " pairs: " + chunkPairs);
+        }
+        this.calc = calc;
+        this.chunkPairs = chunkPairs;
+    }
+
+    // Returns the number of pairs processed; the output file is replaced
+    public long process(Path input, Path output, Operation op) throws IOException {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            if (size % PAIR_BYTES != 0) {
+                throw new IOException("Input size " + size + " is not a multiple of "
+                        + PAIR_BYTES + " bytes: " + input);
+            }
+            long pairs = size / PAIR_BYTES;
+            for (long first = 0; first < pairs; first += chunkPairs) {
+                int count = (int) Math.min(chunkPairs, pairs - first);
+                DoubleBuffer operands = in
+                        .map(FileChannel.MapMode.READ_ONLY, first * PAIR_BYTES, (long) count * PAIR_BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN)
+                        .asDoubleBuffer();
+                DoubleBuffer results = out
+                        .map(FileChannel.MapMode.READ_WRITE, first * Double.BYTES, (long) count * Double.BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN)
+                        .asDoubleBuffer();
+                double last = apply(op, operands, results, count);
+                calc.recordBatch(count, last, op.getOperationName());
+            }
+            return pairs;
+        }
+    }
+
+    // One loop per operation so the operation is not re-dispatched per record.
+    // Division follows IEEE 754, like Calculator.divideAll().
+    private static double apply(Operation op, DoubleBuffer operands, DoubleBuffer results, int count) {
+        switch (op) {
+            case ADD:
+                for (int i = 0; i < count; i++) {
+                    results.put(i, operands.get(2 * i) + operands.get(2 * i + 1));
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < count; i++) {
+                    results.put(i, operands.get(2 * i) - operands.get(2 * i + 1));
+                }
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < count; i++) {
+                    results.put(i, operands.get(2 * i) * operands.get(2 * i + 1));
+                }
+                break;
+            default:
+                for (int i = 0; i < count; i++) {
+                    results.put(i, operands.get(2 * i) / operands.get(2 * i + 1));
+                }
+                break;
+        }
+        return results.get(count - 1);
+    }
+}
+
+// 10. Reducers - streaming aggregates over doubles
+//
+// Each reducer consumes values one at a time and can be merged with another
+// reducer of the same kind, so partial results from different threads (or
+// from the chunks of a mapped file) combine into the same answer a single
+// pass would give. DoubleStream.collect() uses combine() for parallel streams.
+interface DoubleReducer<R extends DoubleReducer<R>> extends DoubleConsumer {
+    // Merges another reducer's partial result into this one
+    void combine(R other);
+
+    default void acceptAll(double[] values) {
+        for (double value : values) {
+            accept(value);
+        }
+    }
+
+    // Reads from position to limit without moving the buffer's position
+    default void acceptAll(DoubleBuffer values) {
+        for (int i = values.position(); i < values.limit(); i++) {
+            accept(values.get(i));
+        }
+    }
+
+    static <R extends DoubleReducer<R>> R reduce(double[] values, Supplier<R> factory) {
+        R reducer = factory.get();
+        reducer.acceptAll(values);
+        return reducer;
+    }
+
+    static <R extends DoubleReducer<R>> R reduce(DoubleBuffer values, Supplier<R> factory) {
+        R reducer = factory.get();
+        reducer.acceptAll(values);
+        return reducer;
+    }
+
+    // Works for sequential and parallel streams alike
+    static <R extends DoubleReducer<R>> R reduce(DoubleStream values, Supplier<R> factory) {
+        return values.collect(factory, R::accept, R::combine);
+    }
+}
+
+// Neumaier (improved Kahan) summation - the running compensation keeps the
+// low-order bits that a plain += loses, whatever the order of magnitudes
+final class CompensatedSum implements DoubleReducer<CompensatedSum> {
+    private double sum;
+    private double compensation;
+    // Plain sum, only used when the total overflows to infinity
+    private double simpleSum;
+    private long count;
+
     @Override
-    double getResult() {
-        return this.result;
+    public void accept(double value) {
+        add(value);
+        simpleSum += value;
+        count++;
+    }
+
+    private void add(double value) {
+        double t = sum + value;
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += (sum - t) + value;
+        } else {
+            compensation += (value - t) + sum;
+        }
+        sum = t;
     }
 
-    // Implementation of interface methods
     @Override
-    public double performOperation(double a, double b) {
-        return add(a, b);
+    public void combine(CompensatedSum other) {
+        add(other.sum);
+        compensation += other.compensation;
+        simpleSum += other.simpleSum;
+        count += other.count;
+    }
+
+    public double getSum() {
+        double total = sum + compensation;
+        // Infinite inputs make the compensation NaN; the plain sum is right
+        if (Double.isNaN(total) && Double.isInfinite(simpleSum)) {
+            return simpleSum;
+        }
+        return total;
     }
 
+    public long getCount() {
+        return count;
+    }
+}
+
+// Product kept as mantissa * 2^exponent, so long runs of very large or very
+// small factors do not overflow or underflow before the final result
+final class RunningProduct implements DoubleReducer<RunningProduct> {
+    private double mantissa = 1.0;
+    private long exponent;
+    private long count;
+
     @Override
-    public String getOperationName() {
-        return this.operationName;
+    public void accept(double value) {
+        multiply(value, 0);
+        count++;
     }
 
-    // Getter method - part of encapsulation to safely access private members
-    public int getOperationsPerformed() {
-        return operationsPerformed;
+    @Override
+    public void combine(RunningProduct other) {
+        multiply(other.mantissa, other.exponent);
+        count += other.count;
     }
 
-    // Instance methods - define the behavior of Calculator objects
-    public double add(double a, double b) {
-        result = a + b;
-        operationsPerformed++;
-        operationName = "Addition";
-        return result;
+    // Multiplies factor * 2^factorExponent into the product. The factor is
+    // split into a mantissa in [1,2) and a binary exponent before anything is
+    // multiplied, so the mantissa product stays in [1,4) and can neither
+    // overflow nor lose bits to a subnormal result. Zero, infinity and NaN
+    // are kept as they are and absorb every later factor.
+    private void multiply(double factor, long factorExponent) {
+        if (factor == 0 || !Double.isFinite(factor) || mantissa == 0 || !Double.isFinite(mantissa)) {
+            mantissa *= factor;
+            return;
+        }
+        int e = Math.getExponent(factor);
+        if (e < Double.MIN_EXPONENT) {
+            // Subnormal - scale into the normal range first
+            factor *= 0x1p54;
+            factorExponent -= 54;
+            e = Math.getExponent(factor);
+        }
+        mantissa *= Math.scalb(factor, -e);
+        exponent += factorExponent + e;
+        int carry = Math.getExponent(mantissa);
+        mantissa = Math.scalb(mantissa, -carry);
+        exponent += carry;
     }
 
-    public double subtract(double a, double b) {
-        result = a - b;
-        operationsPerformed++;
-        operationName = "Subtraction";
-        return result;
+    public double getProduct() {
+        if (mantissa == 0 || !Double.isFinite(mantissa)) {
+            return mantissa;
+        }
+        // scalb() rounds to infinity or zero when the result is out of range
+        int scale = (int) Math.max(-2 * Double.MAX_EXPONENT, Math.min(2 * Double.MAX_EXPONENT, exponent));
+        return Math.scalb(mantissa, scale);
     }
 
-    public double multiply(double a, double b) {
-        result = a * b;
-        operationsPerformed++;
-        operationName = "Multiplication";
-        return result;
+    public long getCount() {
+        return count;
     }
+}
 
-    public String divide(double a, double b) {
-        operationsPerformed++;
-        operationName = "Division";
-        if (b == 0) {
-            return "Error: Cannot divide by zero";
+// Minimum and maximum; NaN inputs propagate like Math.min/Math.max
+final class RunningMinMax implements DoubleReducer<RunningMinMax> {
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private long count;
+
+    @Override
+    public void accept(double value) {
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        count++;
+    }
+
+    @Override
+    public void combine(RunningMinMax other) {
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        count += other.count;
+    }
+
+    // +Infinity when no values were seen
+    public double getMin() {
+        return min;
+    }
+
+    // -Infinity when no values were seen
+    public double getMax() {
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
+
+// Welford's online mean and variance; combine() uses Chan et al.'s pairwise
+// update, so merged partial results match a single pass
+final class RunningMoments implements DoubleReducer<RunningMoments> {
+    private long count;
+    private double mean;
+    // Sum of squared differences from the current mean
+    private double m2;
+
+    @Override
+    public void accept(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+    }
+
+    @Override
+    public void combine(RunningMoments other) {
+        if (other.count == 0) {
+            return;
         }
-        result = a / b;
-        return String.valueOf(result);
+        if (count == 0) {
+            count = other.count;
+            mean = other.mean;
+            m2 = other.m2;
+            return;
+        }
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+        count = total;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // NaN when no values were seen
+    public double getMean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    // Population variance (divides by n)
+    public double getVariance() {
+        return count == 0 ? Double.NaN : m2 / count;
+    }
+
+    // Sample variance (divides by n - 1)
+    public double getSampleVariance() {
+        return count < 2 ? Double.NaN : m2 / (count - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
     }
 }
 
@@ -134,8 +1693,6 @@ class Calculator extends AbstractCalculator implements MathOperations {
  */
 
 // A simple calculator program to demonstrate Java program structure
-import java.util.Scanner;
-
 public class yuh {
     private static void printMenu() {
         System.out.println("\nCalculator Menu:");
@@ -143,23 +1700,73 @@ public class yuh {
         System.out.println("2. Subtract");
         System.out.println("3. Multiply");
         System.out.println("4. Divide");
-        System.out.println("5. Exit");
+        System.out.println("5. Evaluate expression");
+        System.out.println("6. Exit");
+    }
+
+    // Compiles the formula once, then asks for each variable it uses
+    private static void evaluateExpression(Calculator calc, Scanner scanner) {
+        System.out.print("Enter expression: ");
+        Expression expression = calc.compile(scanner.nextLine());
+        String[] variables = expression.getVariables();
+        double[] bindings = new double[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            System.out.print("Enter " + variables[i] + ": ");
+            bindings[i] = Double.parseDouble(scanner.nextLine());
+        }
+        System.out.println("Result: " + calc.evaluate(expression, bindings));
+    }
+
+    // Non-interactive mode: java yuh --batch [file]  (reads stdin without a file)
+    private static void runBatch(String[] args) throws IOException {
+        Calculator calc = new Calculator();
+        Writer out = BatchProcessor.newWriter(System.out);
+        try (ReadableByteChannel in = args.length > 1
+                ? FileChannel.open(Paths.get(args[1]))
+                : Channels.newChannel(System.in)) {
+            new BatchProcessor(calc).process(in, out);
+        }
+    }
+
+    // Binary mode: java yuh --mapped <op> <input> <output>
+    private static void runMapped(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.out.println("Usage: java yuh --mapped <add|subtract|multiply|divide> <input> <output>");
+            return;
+        }
+        Calculator calc = new Calculator();
+        long pairs = new MappedOperandProcessor(calc)
+                .process(Paths.get(args[2]), Paths.get(args[3]), Operation.parse(args[1]));
+        System.out.println("Processed " + pairs + " pairs");
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            runBatch(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--mapped")) {
+            runMapped(args);
+            return;
+        }
+
         Calculator calc = new Calculator();
         Scanner scanner = new Scanner(System.in);
 
         while (true) {
             try {
                 printMenu();
-                System.out.print("Enter your choice (1-5): ");
+                System.out.print("Enter your choice (1-6): ");
                 String choice = scanner.nextLine();
 
-                if (choice.equals("5")) {
+                if (choice.equals("6")) {
                     System.out.println("Goodbye!");
                     break;
                 }
+                if (choice.equals("5")) {
+                    evaluateExpression(calc, scanner);
+                    continue;
+                }
 
                 System.out.print("Enter first number: ");
                 double num1 = Double.parseDouble(scanner.nextLine());
@@ -184,6 +1791,8 @@ public class yuh {
                 }
             } catch (NumberFormatException e) {
                 System.out.println("Error: Please enter valid numbers. " + e.getMessage());
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error: " + e.getMessage());
             } catch (Exception e) {
                 System.out.println("An unexpected error occurred: " + e.getMessage());
             }